@@ -8,18 +8,25 @@ import java.io.InterruptedIOException;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class Server extends Thread {
     final BaseHandler.Factory<?> handlerFactory;
     final ServerSocket serverSocket;
-    List<SocketThread> socketThreads;
+    final List<SocketThread> socketThreads;
+    private volatile boolean draining;
+    private volatile DrainListener drainListener;
 
     public Server(final BaseHandler.Factory<?> handlerFactory,
                   final boolean reuseAddress) throws IOException {
         this.handlerFactory = handlerFactory;
         serverSocket = new ServerSocket();
+        socketThreads = new CopyOnWriteArrayList<>();
 
         serverSocket.setReuseAddress(reuseAddress);
     }
@@ -35,6 +42,14 @@ public class Server extends Thread {
         start();
     }
 
+    /**
+     * @param drainListener notified about the progress of {@link #drainServer(long, TimeUnit)},
+     *                      or {@code null} to stop receiving notifications
+     */
+    public void setDrainListener(final DrainListener drainListener) {
+        this.drainListener = drainListener;
+    }
+
     public void closeConnection(final String ip) throws IOException {
         final ArrayList<SocketThread> socketThreadsToRemove = new ArrayList<>();
         for (final SocketThread socketThread : socketThreads) {
@@ -46,37 +61,171 @@ public class Server extends Thread {
         socketThreads.removeAll(socketThreadsToRemove);
     }
 
+    /**
+     * Stops accepting connections and abruptly closes all open ones, dropping the responses to the
+     * commands that are still being handled. Use {@link #drainServer(long, TimeUnit)} to let them
+     * finish first.
+     */
     public void stopServer() throws IOException {
         interrupt();
+        serverSocket.close(); // interrupt() alone does not unblock accept()
 
-        if (socketThreads == null) {
-            return;
-        }
         for (final SocketThread socketThread : socketThreads) {
             socketThread.closeConnection();
         }
     }
 
+    /**
+     * Stops accepting connections and lets the commands currently being handled finish. Every
+     * client then receives a {@link Packet#GOING_AWAY} packet, either right away if it is idle or
+     * after the response to its in-flight command, and its connection is closed. Connections
+     * still open when the timeout expires are closed abruptly.
+     *
+     * @param timeout the maximum time to wait for in-flight commands to finish
+     * @param unit the unit of {@code timeout}
+     * @return {@code true} if every connection was drained gracefully, {@code false} if some had
+     *         to be closed abruptly because the timeout expired
+     */
+    public boolean drainServer(final long timeout, final TimeUnit unit)
+            throws IOException, InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+        draining = true;
+        serverSocket.close(); // makes accept() throw, so that run() returns
+        // wait for run() to return, so that no connection is added after this point
+        TimeUnit.NANOSECONDS.timedJoin(this, Math.max(1, deadline - System.nanoTime()));
+
+        // connection threads remove themselves from socketThreads when they end, so work on a
+        // copy, in order to join also those that drained gracefully but are still notifying
+        final List<SocketThread> drainingSocketThreads = new ArrayList<>(socketThreads);
+
+        final DrainListener listener = drainListener;
+        if (listener != null) {
+            listener.onDrainStarted(getConnectionCount(), getInFlightCommandCount());
+        }
+
+        for (final SocketThread socketThread : drainingSocketThreads) {
+            try {
+                socketThread.goAway();
+            } catch (IOException e) {
+                // the client is already gone, there is nothing left to drain
+                socketThread.closeConnection();
+            }
+        }
+        for (final SocketThread socketThread : drainingSocketThreads) {
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                break;
+            }
+            TimeUnit.NANOSECONDS.timedJoin(socketThread, remaining);
+        }
+
+        int forciblyClosed = 0;
+        for (final SocketThread socketThread : drainingSocketThreads) {
+            if (!socketThread.isAlive()) {
+                continue;
+            }
+
+            if (socketThread.forceCloseAfterDrain()) {
+                ++forciblyClosed;
+            } else {
+                // already drained, it only has to close and notify the listener, which must
+                // happen before onDrainCompleted()
+                socketThread.join();
+            }
+        }
+
+        if (listener != null) {
+            listener.onDrainCompleted(forciblyClosed);
+        }
+        return forciblyClosed == 0;
+    }
+
+    /**
+     * @return whether {@link #drainServer(long, TimeUnit)} was called
+     */
+    public boolean isDraining() {
+        return draining;
+    }
+
+    /**
+     * @return the number of currently open connections
+     */
+    public int getConnectionCount() {
+        return socketThreads.size();
+    }
+
+    /**
+     * @return the number of commands that are currently being handled, i.e. whose response has
+     *         not been sent yet
+     */
+    public int getInFlightCommandCount() {
+        int inFlight = 0;
+        for (final SocketThread socketThread : socketThreads) {
+            if (socketThread.isBusy()) {
+                ++inFlight;
+            }
+        }
+        return inFlight;
+    }
+
 
     @Override
     public void run() {
-        socketThreads = new ArrayList<>();
-        while (!isInterrupted()) {
+        while (!isInterrupted() && !serverSocket.isClosed()) {
             try {
                 final SocketThread socketThread =
                         new SocketThread(serverSocket.accept(), handlerFactory.buildHandler());
-                socketThread.start();
                 socketThreads.add(socketThread);
+                socketThread.start();
             } catch (Exception e) {
+                if (serverSocket.isClosed()) {
+                    break; // stopServer() or drainServer() was called
+                }
                 // TODO better error handling
                 e.printStackTrace();
             }
         }
     }
 
+    /**
+     * Receives notifications about the progress of {@link #drainServer(long, TimeUnit)}. The
+     * methods are called on the thread calling {@link #drainServer(long, TimeUnit)}, except for
+     * {@link #onConnectionDrained(int)}, which is called on the thread of the closed connection.
+     * Every {@link #onConnectionDrained(int)} call happens after {@link #onDrainStarted(int, int)}
+     * and before {@link #onDrainCompleted(int)}.
+     */
+    public interface DrainListener {
+        /**
+         * @param connections the number of connections still open when the drain started
+         * @param inFlightCommands the number of commands being handled when the drain started
+         */
+        void onDrainStarted(int connections, int inFlightCommands);
+
+        /**
+         * Called for every connection that was sent {@link Packet#GOING_AWAY} and closed before
+         * the timeout, but not for connections closed by the client on its own or closed
+         * abruptly because the timeout expired
+         * @param remainingConnections the number of connections still open
+         */
+        void onConnectionDrained(int remainingConnections);
+
+        /**
+         * @param forciblyClosedConnections the number of connections that had to be closed
+         *                                  abruptly because the drain timeout expired
+         */
+        void onDrainCompleted(int forciblyClosedConnections);
+    }
+
     private class SocketThread extends Thread {
         private final Socket socket;
         private final BaseHandler handler;
+        private volatile boolean busy = false;
+        private volatile boolean goingAway = false;
+        // set by whoever first decides how the connection ends during a drain: this thread after
+        // sending the going away signal, or drainServer() when force-closing it at the deadline
+        private final AtomicBoolean drainSettled = new AtomicBoolean(false);
+        private boolean drained = false;
 
         private SocketThread(final Socket socket, final BaseHandler handler) {
             this.socket = socket;
@@ -87,39 +236,110 @@ public class Server extends Thread {
             return new String(socket.getInetAddress().getAddress());
         }
 
+        public boolean isBusy() {
+            return busy;
+        }
+
         @Override
         public void run() {
             try {
                 while (!isInterrupted()) {
-                    final String data = Packet.receiveAll(socket);
+                    final String data = receive();
                     if (data == null) {
+                        if (goingAway) {
+                            sendGoingAway(); // goAway() shut down the input of an idle connection
+                        }
+                        break;
+                    }
+
+                    busy = true;
+                    if (goingAway) {
+                        // the command arrived while the client was being told to go away, so
+                        // drop it: the client will not wait for it and can retry it elsewhere
+                        busy = false;
+                        sendGoingAway();
                         break;
                     }
 
                     Packet.sendAll(socket, handler.handleData(data));
+                    busy = false;
+                    if (goingAway) {
+                        sendGoingAway();
+                        break;
+                    }
                 }
 
             } catch (InterruptedIOException e) {
                 // TODO remove printStackTrace
                 e.printStackTrace();
             } catch (Exception e) {
-                // TODO better error handling
-                e.printStackTrace();
+                if (!socket.isClosed()) {
+                    // TODO better error handling
+                    e.printStackTrace();
+                }
             }
 
             try {
-                closeConnection();
+                socket.close(); // not closeConnection(), which would interrupt this thread
                 // after everything was closed, remove this thread from the thread list
                 socketThreads.remove(this);
+
+                final DrainListener listener = drainListener;
+                if (drained && listener != null) {
+                    // a graceful drain is never interrupted, but clear the flag anyway, since
+                    // the listener may block
+                    Thread.interrupted();
+                    listener.onConnectionDrained(socketThreads.size());
+                }
             } catch (IOException e) {
                 // TODO better error handling
                 e.printStackTrace();
             }
         }
 
+        private String receive() throws IOException {
+            try {
+                return Packet.receiveAll(socket);
+            } catch (SocketException e) {
+                if (socket.isInputShutdown() && !socket.isClosed()) {
+                    return null; // goAway() shut down the input before receiveAll() got to it
+                }
+                throw e;
+            }
+        }
+
+        private void sendGoingAway() throws IOException {
+            Packet.sendGoingAway(socket);
+            drained = drainSettled.compareAndSet(false, true);
+        }
+
+        /**
+         * Asks {@link #run()} to send the going away signal, right away if no command is being
+         * handled, otherwise after the response. Only {@link #run()} writes to the socket, so
+         * that a client which stopped reading cannot block the draining thread.
+         */
+        public void goAway() throws IOException {
+            goingAway = true;
+            if (!busy) {
+                socket.shutdownInput(); // makes receiveAll() in run() return null
+            }
+        }
+
+        /**
+         * Closes the connection abruptly, unless it was already drained gracefully
+         * @return whether the connection was closed by this call
+         */
+        public boolean forceCloseAfterDrain() throws IOException {
+            if (!drainSettled.compareAndSet(false, true)) {
+                return false;
+            }
+            closeConnection();
+            return true;
+        }
+
         public void closeConnection() throws IOException {
+            socket.close(); // before interrupting, so that run() knows the failure is expected
             interrupt();
-            socket.close();
         }
     }
 }
@@ -14,6 +14,12 @@ public class Packet {
     public static final int HEADER_LENGTH = 4;
     public static final ByteOrder HEADER_BYTEORDER = ByteOrder.BIG_ENDIAN;
     public static final Charset ENCODING = StandardCharsets.UTF_8;
+    /**
+     * Sent by a draining server in place of (or after) a response, to tell the client that the
+     * connection is about to be closed and that further commands should go to another server.
+     * Encoded as an empty packet, which is never produced by a regular json response.
+     */
+    public static final String GOING_AWAY = "";
 
     private Packet() {
     }
@@ -28,6 +34,18 @@ public class Packet {
         outputStream.write(bytes); // data
     }
 
+    public static void sendGoingAway(final Socket socket) throws IOException {
+        sendAll(socket, GOING_AWAY);
+    }
+
+    /**
+     * @param data the data received with {@link #receiveAll(Socket)}
+     * @return whether the data is the going away signal, sent by a draining server
+     */
+    public static boolean isGoingAway(final String data) {
+        return GOING_AWAY.equals(data);
+    }
+
     public static String receiveAll(final Socket socket) throws IOException {
         final InputStream inputStream = socket.getInputStream();
 
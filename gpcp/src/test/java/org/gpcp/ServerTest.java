@@ -4,15 +4,29 @@ import com.grack.nanojson.JsonArray;
 
 import org.gpcp.utils.BaseHandler;
 import org.gpcp.utils.Command;
+import org.gpcp.utils.Packet;
 import org.junit.Test;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.net.Socket;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
 public class ServerTest {
 
     static class Handler extends BaseHandler {
@@ -41,6 +55,54 @@ public class ServerTest {
         public int massimo(final int a, final int b) {
             return Math.max(a, b);
         }
+
+        @Command
+        public int sleep(final int millis) throws InterruptedException {
+            TimeUnit.MILLISECONDS.sleep(millis);
+            return millis;
+        }
+    }
+
+    static class RecordingDrainListener implements Server.DrainListener {
+        final List<String> events = Collections.synchronizedList(new ArrayList<>());
+        final long drainedSleepMillis;
+
+        RecordingDrainListener() {
+            this(0);
+        }
+
+        /**
+         * @param drainedSleepMillis how long to block in {@link #onConnectionDrained(int)}
+         */
+        RecordingDrainListener(final long drainedSleepMillis) {
+            this.drainedSleepMillis = drainedSleepMillis;
+        }
+
+        @Override
+        public void onDrainStarted(final int connections, final int inFlightCommands) {
+            events.add("started " + connections + " " + inFlightCommands);
+        }
+
+        @Override
+        public void onConnectionDrained(final int remainingConnections) {
+            if (drainedSleepMillis > 0) {
+                final long start = System.nanoTime();
+                try {
+                    TimeUnit.MILLISECONDS.sleep(drainedSleepMillis);
+                } catch (InterruptedException e) {
+                    events.add("interrupted");
+                }
+                if (System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(drainedSleepMillis)) {
+                    events.add("woke early");
+                }
+            }
+            events.add("drained " + remainingConnections);
+        }
+
+        @Override
+        public void onDrainCompleted(final int forciblyClosedConnections) {
+            events.add("completed " + forciblyClosedConnections);
+        }
     }
 
     @Test(timeout = 5100)
@@ -67,6 +129,147 @@ public class ServerTest {
         server.stopServer();
     }
 
+    @Test(timeout = 2000)
+    public void testDrainIdleConnection() throws Exception {
+        final Server server = new Server(
+                new BaseHandler.Factory<>(Handler.class, Handler::new), true);
+        server.startServer("localhost", 8000);
+
+        try (Socket socket = new Socket("localhost", 8000)) {
+            Packet.sendAll(socket, "pi[]");
+            assertEquals("3.14159", Packet.receiveAll(socket));
+
+            assertTrue(server.drainServer(1, TimeUnit.SECONDS));
+            assertTrue(Packet.isGoingAway(Packet.receiveAll(socket)));
+            assertNull(Packet.receiveAll(socket));
+        }
+        assertEquals(0, server.getConnectionCount());
+    }
+
+    @Test(timeout = 2000)
+    public void testDrainInFlightCommand() throws Exception {
+        final Server server = new Server(
+                new BaseHandler.Factory<>(Handler.class, Handler::new), true);
+        server.startServer("localhost", 8000);
+
+        final RecordingDrainListener listener = new RecordingDrainListener();
+        server.setDrainListener(listener);
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (Socket socket = new Socket("localhost", 8000)) {
+            Packet.sendAll(socket, "sleep[300]");
+            while (server.getInFlightCommandCount() == 0) {
+                TimeUnit.MILLISECONDS.sleep(10);
+            }
+            assertFalse(server.isDraining());
+
+            final Future<Boolean> drained =
+                    executor.submit(() -> server.drainServer(1, TimeUnit.SECONDS));
+            // the response to the in-flight command is still delivered before going away
+            assertEquals("300", Packet.receiveAll(socket));
+            assertTrue(server.isDraining());
+            assertTrue(Packet.isGoingAway(Packet.receiveAll(socket)));
+            assertTrue(drained.get());
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(Arrays.asList("started 1 1", "drained 0", "completed 0"), listener.events);
+    }
+
+    @Test(timeout = 2000)
+    public void testDrainTimeout() throws Exception {
+        final Server server = new Server(
+                new BaseHandler.Factory<>(Handler.class, Handler::new), true);
+        server.startServer("localhost", 8000);
+
+        final RecordingDrainListener listener = new RecordingDrainListener();
+        server.setDrainListener(listener);
+
+        try (Socket socket = new Socket("localhost", 8000)) {
+            Packet.sendAll(socket, "sleep[1000]");
+            while (server.getInFlightCommandCount() == 0) {
+                TimeUnit.MILLISECONDS.sleep(10);
+            }
+
+            // the command does not finish in time, so the connection is closed abruptly
+            assertFalse(server.drainServer(100, TimeUnit.MILLISECONDS));
+            assertNull(Packet.receiveAll(socket));
+        }
+
+        // the force-closed connection must not be reported as drained, not even later
+        TimeUnit.MILLISECONDS.sleep(200);
+        assertEquals(Arrays.asList("started 1 1", "completed 1"), listener.events);
+    }
+
+    @Test(timeout = 2000)
+    public void testDrainTimeoutWithSlowListener() throws Exception {
+        final Server server = new Server(
+                new BaseHandler.Factory<>(Handler.class, Handler::new), true);
+        server.startServer("localhost", 8000);
+
+        final RecordingDrainListener listener = new RecordingDrainListener(300);
+        server.setDrainListener(listener);
+
+        try (Socket idleSocket = new Socket("localhost", 8000);
+             Socket busySocket = new Socket("localhost", 8000)) {
+            Packet.sendAll(busySocket, "sleep[1000]");
+            while (server.getConnectionCount() < 2 || server.getInFlightCommandCount() == 0) {
+                TimeUnit.MILLISECONDS.sleep(10);
+            }
+
+            // the idle connection drains right away, but its listener call is still running
+            // when the deadline expires and the busy connection is closed abruptly
+            assertFalse(server.drainServer(100, TimeUnit.MILLISECONDS));
+            assertTrue(Packet.isGoingAway(Packet.receiveAll(idleSocket)));
+        }
+        assertEquals(Arrays.asList("started 2 1", "drained 1", "completed 1"), listener.events);
+    }
+
+    @Test(timeout = 2000)
+    public void testBlockingListener() throws Exception {
+        final Server server = new Server(
+                new BaseHandler.Factory<>(Handler.class, Handler::new), true);
+        server.startServer("localhost", 8000);
+
+        final RecordingDrainListener listener = new RecordingDrainListener(300);
+        server.setDrainListener(listener);
+
+        try (Socket socket = new Socket("localhost", 8000)) {
+            while (server.getConnectionCount() == 0) {
+                TimeUnit.MILLISECONDS.sleep(10);
+            }
+
+            // the listener must be able to block, e.g. to push metrics
+            assertTrue(server.drainServer(1, TimeUnit.SECONDS));
+            assertTrue(Packet.isGoingAway(Packet.receiveAll(socket)));
+        }
+        assertEquals(Arrays.asList("started 1 0", "drained 0", "completed 0"), listener.events);
+    }
+
+    @Test(timeout = 2000)
+    public void testCommandAfterGoingAway() throws Exception {
+        final Server server = new Server(
+                new BaseHandler.Factory<>(Handler.class, Handler::new), true);
+        server.startServer("localhost", 8000);
+
+        try (Socket socket = new Socket("localhost", 8000)) {
+            while (server.getConnectionCount() == 0) {
+                TimeUnit.MILLISECONDS.sleep(10);
+            }
+            assertTrue(server.drainServer(1, TimeUnit.SECONDS));
+            assertTrue(Packet.isGoingAway(Packet.receiveAll(socket)));
+
+            String response;
+            try {
+                Packet.sendAll(socket, "pi[]");
+                response = Packet.receiveAll(socket);
+            } catch (IOException e) {
+                response = null; // the server may also reset the connection
+            }
+            assertNull(response);
+        }
+    }
+
     public static void main(String[] args) throws IOException {
         final Server server = new Server(
                 new BaseHandler.Factory<>(Handler.class, Handler::new), true);
@@ -0,0 +1,150 @@
+package org.gpcp.loadgen;
+
+import com.grack.nanojson.JsonArray;
+import com.grack.nanojson.JsonObject;
+import com.grack.nanojson.JsonParser;
+import com.grack.nanojson.JsonParserException;
+import com.grack.nanojson.JsonWriter;
+
+import org.gpcp.types.TypeId;
+import org.gpcp.utils.Packet;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A valid call to one of the commands of a server, built from the output of its
+ * {@code requestCommands} command
+ */
+public final class Call {
+    static final String REQUEST_COMMANDS = "requestCommands";
+
+    final String name;
+    final String request;
+    private final int returnTypeId;
+
+    Call(final String name, final String request, final int returnTypeId) {
+        this.name = name;
+        this.request = request;
+        this.returnTypeId = returnTypeId;
+    }
+
+    /**
+     * The server reports failures as a string response, so a response whose type does not match
+     * the declared return type is considered an error
+     * @param response the response received from the server
+     * @return whether the response is valid json of the declared return type
+     */
+    boolean isValidResponse(final String response) {
+        final Object json;
+        try {
+            json = JsonParser.any().from(response);
+        } catch (JsonParserException e) {
+            return false;
+        }
+
+        if (returnTypeId == TypeId.jsonObjectId.getId()) {
+            return json instanceof JsonObject;
+        } else if (returnTypeId == TypeId.jsonArrayId.getId()) {
+            return json instanceof JsonArray;
+        } else if (returnTypeId == TypeId.stringId.getId()
+                || returnTypeId == TypeId.bytesId.getId()) {
+            return json instanceof String;
+        } else if (returnTypeId == TypeId.booleanId.getId()) {
+            return json instanceof Boolean;
+        } else if (returnTypeId == TypeId.integerId.getId()) {
+            return json instanceof Integer || json instanceof Long;
+        } else if (returnTypeId == TypeId.floatId.getId()) {
+            return json instanceof Number;
+        } else {
+            return true; // custom type converter, nothing to check
+        }
+    }
+
+
+    /**
+     * Retrieves the commands of the server and builds a call for each of them, with generated
+     * arguments of the declared types
+     * @param socket connected to the server
+     * @param commandNames the commands to call, or an empty list to call all of them except
+     *                     {@code requestCommands}
+     * @param payloadLength the length of generated string and bytes arguments
+     * @return the calls, in the order of {@code commandNames} if not empty
+     * @throws IllegalArgumentException if a command in {@code commandNames} does not exist or an
+     *                                  argument type is unknown
+     */
+    static List<Call> fetchCalls(final Socket socket,
+                                 final List<String> commandNames,
+                                 final int payloadLength)
+            throws IOException, JsonParserException {
+        Packet.sendAll(socket, REQUEST_COMMANDS + "[]");
+        final String response = Packet.receiveAll(socket);
+        if (response == null || Packet.isGoingAway(response)) {
+            throw new IOException("Connection closed while requesting commands");
+        }
+        final JsonArray commands = JsonParser.array().from(response);
+
+        final List<Call> calls = new ArrayList<>();
+        for (final Object command : commands) {
+            final JsonObject commandObject = (JsonObject) command;
+            final String name = commandObject.getString("name");
+            if (commandNames.isEmpty() ? name.equals(REQUEST_COMMANDS)
+                    : !commandNames.contains(name)) {
+                continue;
+            }
+
+            final JsonArray arguments = new JsonArray();
+            for (final Object argument : commandObject.getArray("arguments")) {
+                arguments.add(generateArgument(
+                        ((JsonObject) argument).getInt("type"), payloadLength));
+            }
+            calls.add(new Call(name, name + JsonWriter.string(arguments),
+                    commandObject.getInt("return_type")));
+        }
+
+        if (!commandNames.isEmpty()) {
+            final List<Call> orderedCalls = new ArrayList<>();
+            for (final String commandName : commandNames) {
+                final Call call = findCall(calls, commandName);
+                if (call == null) {
+                    throw new IllegalArgumentException("Unknown command " + commandName);
+                }
+                orderedCalls.add(call);
+            }
+            return orderedCalls;
+        }
+        return calls;
+    }
+
+    private static Call findCall(final List<Call> calls, final String name) {
+        for (final Call call : calls) {
+            if (call.name.equals(name)) {
+                return call;
+            }
+        }
+        return null;
+    }
+
+    private static Object generateArgument(final int typeId, final int payloadLength) {
+        if (typeId == TypeId.jsonObjectId.getId()) {
+            return new JsonObject();
+        } else if (typeId == TypeId.jsonArrayId.getId()) {
+            return new JsonArray();
+        } else if (typeId == TypeId.stringId.getId() || typeId == TypeId.bytesId.getId()) {
+            final char[] payload = new char[payloadLength];
+            Arrays.fill(payload, 'x');
+            return new String(payload);
+        } else if (typeId == TypeId.booleanId.getId()) {
+            return true;
+        } else if (typeId == TypeId.integerId.getId()) {
+            return 1;
+        } else if (typeId == TypeId.floatId.getId()) {
+            return 1.5;
+        } else {
+            throw new IllegalArgumentException("Cannot generate an argument of type " + typeId);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package org.gpcp.loadgen;
+
+/**
+ * A log-linear histogram of non-negative values, with a relative error below 1.6%. Not thread
+ * safe: every {@link Worker} records into its own histogram, which are then {@link #add}ed up.
+ */
+public final class Histogram {
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF_COUNT = SUB_BUCKET_COUNT / 2;
+    private static final int BUCKET_COUNT =
+            SUB_BUCKET_COUNT + (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKET_HALF_COUNT;
+
+    private final long[] counts = new long[BUCKET_COUNT];
+    private long totalCount = 0;
+    private long sum = 0;
+    private long max = 0;
+
+
+    public void record(final long value) {
+        final long clampedValue = Math.max(0, value);
+        ++counts[indexOf(clampedValue)];
+        ++totalCount;
+        sum += clampedValue;
+        max = Math.max(max, clampedValue);
+    }
+
+    /**
+     * Records the value, and if it is bigger than the expected interval between two consecutive
+     * calls also records the values that the calls which could not be sent in the meantime
+     * would have measured, to correct for coordinated omission in closed-loop workloads.
+     *
+     * @param value the measured value
+     * @param expectedInterval the expected interval between two calls, or {@code 0} to only
+     *                         record {@code value}
+     */
+    public void recordWithExpectedInterval(final long value, final long expectedInterval) {
+        record(value);
+        if (expectedInterval <= 0) {
+            return;
+        }
+
+        for (long missingValue = value - expectedInterval;
+             missingValue >= expectedInterval;
+             missingValue -= expectedInterval) {
+            record(missingValue);
+        }
+    }
+
+    public void add(final Histogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] += other.counts[i];
+        }
+        totalCount += other.totalCount;
+        sum += other.sum;
+        max = Math.max(max, other.max);
+    }
+
+
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return totalCount == 0 ? 0 : (double) sum / totalCount;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the value below which {@code percentile}% of the recorded values fall, or {@code 0}
+     *         if nothing was recorded
+     */
+    public long getValueAtPercentile(final double percentile) {
+        final long targetCount = Math.max(1, (long) Math.ceil(percentile / 100.0 * totalCount));
+        long cumulativeCount = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            cumulativeCount += counts[i];
+            if (cumulativeCount >= targetCount) {
+                return Math.min(max, highestValueAt(i));
+            }
+        }
+        return 0;
+    }
+
+
+    private static int indexOf(final long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+
+        // shift such that (value >> shift) is in [SUB_BUCKET_HALF_COUNT, SUB_BUCKET_COUNT)
+        final int shift = (Long.SIZE - 1 - Long.numberOfLeadingZeros(value))
+                - (SUB_BUCKET_BITS - 1);
+        return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF_COUNT
+                + (int) ((value >> shift) - SUB_BUCKET_HALF_COUNT);
+    }
+
+    private static long highestValueAt(final int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+
+        final int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF_COUNT + 1;
+        final long subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF_COUNT
+                + SUB_BUCKET_HALF_COUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
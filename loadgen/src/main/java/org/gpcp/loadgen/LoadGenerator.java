@@ -0,0 +1,229 @@
+package org.gpcp.loadgen;
+
+import com.grack.nanojson.JsonParserException;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generates load against a gpcp server over many connections, either at a fixed rate (open-loop)
+ * or as fast as the server responds (closed-loop), and reports throughput, latency percentiles
+ * and error rates. Calls are built from the output of the {@code requestCommands} command.
+ */
+public final class LoadGenerator {
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9, 99.99, 100};
+    // how long to wait for workers to notice their read timeout before aborting them
+    private static final long ABORT_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+
+    private final Options options;
+    private final List<Call> calls;
+
+    public LoadGenerator(final Options options, final List<Call> calls) {
+        this.options = options;
+        this.calls = calls;
+    }
+
+    /**
+     * Runs the workload and blocks until it is finished
+     * @return the results, merged across all connections
+     */
+    public Result run() throws InterruptedException {
+        // give every thread time to start before the first scheduled call
+        final long startNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+
+        final List<Worker> workers = new ArrayList<>();
+        for (int i = 0; i < options.connections; i++) {
+            final Worker worker = new Worker(options, calls, i, startNanos);
+            worker.start();
+            workers.add(worker);
+        }
+
+        // workers stop by themselves once their read timeout expires, unless they are stuck
+        // writing to a server that stopped reading, so abort them after a while
+        final long measureStartNanos = startNanos + options.warmupNanos;
+        final long abortNanos = measureStartNanos + options.durationNanos + options.timeoutNanos
+                + ABORT_DELAY_NANOS;
+        final Result result = new Result(measureStartNanos);
+        for (final Worker worker : workers) {
+            TimeUnit.NANOSECONDS.timedJoin(worker, Math.max(1, abortNanos - System.nanoTime()));
+            if (worker.isAlive()) {
+                worker.abort();
+                worker.join();
+            }
+            result.add(worker);
+        }
+        return result;
+    }
+
+
+    public static final class Result {
+        final Histogram responseLatency = new Histogram();
+        final Histogram serviceLatency = new Histogram();
+        private final long measureStartNanos;
+        long durationNanos = 1;
+        long completedCalls = 0;
+        long invalidResponses = 0;
+        long connectionErrors = 0;
+        long goingAwaySignals = 0;
+        long rejectedCalls = 0;
+        long timedOutCalls = 0;
+        long unsentCalls = 0;
+        final List<String> workerFailures = new ArrayList<>();
+
+        private Result(final long measureStartNanos) {
+            this.measureStartNanos = measureStartNanos;
+        }
+
+        private void add(final Worker worker) {
+            responseLatency.add(worker.responseLatency);
+            serviceLatency.add(worker.serviceLatency);
+            completedCalls += worker.completedCalls;
+            invalidResponses += worker.invalidResponses;
+            connectionErrors += worker.connectionErrors;
+            goingAwaySignals += worker.goingAwaySignals;
+            rejectedCalls += worker.rejectedCalls;
+            timedOutCalls += worker.timedOutCalls;
+            unsentCalls += worker.unsentCalls;
+            if (worker.failure != null) {
+                workerFailures.add(worker.getName() + ": " + worker.failure);
+            }
+            // the actual duration, since the last calls can complete after the nominal end
+            durationNanos = Math.max(durationNanos, worker.finishedNanos - measureStartNanos);
+        }
+
+        /**
+         * @return the number of calls that completed with a response of the declared type
+         */
+        public long getSuccessfulCalls() {
+            return completedCalls - invalidResponses;
+        }
+
+        /**
+         * @return the number of calls that failed, including those with an invalid response
+         */
+        public long getFailedCalls() {
+            return invalidResponses + connectionErrors + rejectedCalls + timedOutCalls;
+        }
+
+        public void print(final PrintStream out, final Options options) {
+            final long failedCalls = getFailedCalls();
+            final long attemptedCalls = getSuccessfulCalls() + failedCalls;
+
+            out.println(String.format(Locale.ROOT, "%s workload, %d connections, %.1f s",
+                    options.isOpenLoop()
+                            ? String.format(Locale.ROOT, "Open-loop (%.1f calls/s)", options.rate)
+                            : "Closed-loop",
+                    options.connections, durationNanos / 1e9));
+            out.println(String.format(Locale.ROOT,
+                    "Throughput:        %.1f successful calls/s (%.1f responses/s)",
+                    getSuccessfulCalls() * 1e9 / durationNanos,
+                    completedCalls * 1e9 / durationNanos));
+            out.println(String.format(Locale.ROOT,
+                    "Calls:             %d completed, of which %d with an invalid response",
+                    completedCalls, invalidResponses));
+            out.println(String.format(Locale.ROOT,
+                    "Errors:            %d invalid responses, %d connection errors,"
+                            + " %d rejected by a draining server, %d timed out"
+                            + " (%.3f%% of calls)",
+                    invalidResponses, connectionErrors, rejectedCalls, timedOutCalls,
+                    attemptedCalls == 0 ? 0.0 : 100.0 * failedCalls / attemptedCalls));
+            out.println(String.format(Locale.ROOT,
+                    "Going away:        %d signals received from draining servers",
+                    goingAwaySignals));
+            if (!workerFailures.isEmpty()) {
+                out.println(String.format(Locale.ROOT,
+                        "Worker failures:   %d connections stopped early, results are partial",
+                        workerFailures.size()));
+                for (final String workerFailure : workerFailures) {
+                    out.println("  " + workerFailure);
+                }
+            }
+            if (options.isOpenLoop()) {
+                out.println(String.format(Locale.ROOT,
+                        "Behind schedule:   %d calls not sent before the end of the run%s",
+                        unsentCalls, unsentCalls > 0 ? " (the server is saturated)" : ""));
+            }
+
+            out.println();
+            if (options.isOpenLoop()) {
+                printLatency(out, "Response latency (from scheduled time, corrected)",
+                        responseLatency);
+            } else if (options.expectedIntervalNanos > 0) {
+                printLatency(out, "Response latency (corrected with expected interval)",
+                        responseLatency);
+            }
+            printLatency(out, options.isOpenLoop() || options.expectedIntervalNanos > 0
+                            ? "Service latency (from send time)"
+                            : "Service latency (from send time, uncorrected, see --rate"
+                                    + " and --expected-interval)",
+                    serviceLatency);
+        }
+
+        private static void printLatency(final PrintStream out,
+                                         final String title,
+                                         final Histogram histogram) {
+            out.println(title + ", in microseconds:");
+            for (final double percentile : PERCENTILES) {
+                out.println(String.format(Locale.ROOT, "  %-8s %d",
+                        percentile == 100 ? "max" : "p" + formatPercentile(percentile),
+                        histogram.getValueAtPercentile(percentile)));
+            }
+            out.println(String.format(Locale.ROOT, "  %-8s %.1f", "mean", histogram.getMean()));
+        }
+
+        private static String formatPercentile(final double percentile) {
+            return percentile == Math.floor(percentile)
+                    ? String.valueOf((long) percentile) : String.valueOf(percentile);
+        }
+    }
+
+
+    public static void main(final String[] args) throws Exception {
+        final Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(Options.USAGE);
+            System.exit(2);
+            return;
+        }
+
+        if (options == null) {
+            System.out.println(Options.USAGE);
+            return;
+        }
+
+        final List<Call> calls;
+        try (Socket socket = new Socket(options.host, options.port)) {
+            calls = Call.fetchCalls(socket, options.commands, options.payloadLength);
+        } catch (IOException | JsonParserException e) {
+            System.err.println("Could not request commands from " + options.host + ":"
+                    + options.port + ": " + e.getMessage());
+            System.exit(1);
+            return;
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+            return;
+        }
+        if (calls.isEmpty()) {
+            System.err.println("The server has no commands to call");
+            System.exit(1);
+            return;
+        }
+
+        System.out.println("Calling:");
+        for (final Call call : calls) {
+            System.out.println("  " + call.request);
+        }
+        System.out.println();
+
+        new LoadGenerator(options, calls).run().print(System.out, options);
+    }
+}
@@ -0,0 +1,153 @@
+package org.gpcp.loadgen;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The command line options of the {@link LoadGenerator}
+ */
+public final class Options {
+    static final String USAGE = "Usage: loadgen [options]\n"
+            + "  --host <host>              server host (default: localhost)\n"
+            + "  --port <port>              server port (default: 8000)\n"
+            + "  --connections <n>          number of concurrent connections (default: 1)\n"
+            + "  --duration <seconds>       measured duration of the run (default: 10)\n"
+            + "  --warmup <seconds>         unmeasured warmup before the run (default: 0)\n"
+            + "  --rate <calls/s>           open-loop: total fixed rate across all connections;\n"
+            + "                             0 means closed-loop, as fast as possible (default: 0)\n"
+            + "  --expected-interval <us>   closed-loop: expected interval between two calls on a\n"
+            + "                             connection, used to correct for coordinated omission\n"
+            + "                             (default: 0, no correction)\n"
+            + "  --commands <a,b,...>       commands to call, as listed by requestCommands\n"
+            + "                             (default: all except requestCommands)\n"
+            + "  --payload <n>              length of generated string and bytes arguments\n"
+            + "                             (default: 16)\n"
+            + "  --timeout <seconds>        how long to wait for responses after the end of the\n"
+            + "                             run before counting them as timed out (default: 1)\n"
+            + "  --help                     print this message";
+
+    public final String host;
+    public final int port;
+    public final int connections;
+    public final long durationNanos;
+    public final long warmupNanos;
+    public final double rate;
+    public final long expectedIntervalNanos;
+    public final List<String> commands;
+    public final int payloadLength;
+    public final long timeoutNanos;
+
+    private Options(final String host,
+                    final int port,
+                    final int connections,
+                    final long durationNanos,
+                    final long warmupNanos,
+                    final double rate,
+                    final long expectedIntervalNanos,
+                    final List<String> commands,
+                    final int payloadLength,
+                    final long timeoutNanos) {
+        this.host = host;
+        this.port = port;
+        this.connections = connections;
+        this.durationNanos = durationNanos;
+        this.warmupNanos = warmupNanos;
+        this.rate = rate;
+        this.expectedIntervalNanos = expectedIntervalNanos;
+        this.commands = commands;
+        this.payloadLength = payloadLength;
+        this.timeoutNanos = timeoutNanos;
+    }
+
+    public boolean isOpenLoop() {
+        return rate > 0;
+    }
+
+    /**
+     * @param args the command line arguments
+     * @return the parsed options, or {@code null} if {@code --help} was requested
+     * @throws IllegalArgumentException if an option is unknown, lacks a value or is invalid
+     */
+    public static Options parse(final String[] args) {
+        String host = "localhost";
+        int port = 8000;
+        int connections = 1;
+        double durationSeconds = 10;
+        double warmupSeconds = 0;
+        double rate = 0;
+        long expectedIntervalMicros = 0;
+        List<String> commands = new ArrayList<>();
+        int payloadLength = 16;
+        double timeoutSeconds = 1;
+
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--help")) {
+                return null;
+            } else if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for option " + args[i]);
+            }
+
+            final String value = args[++i];
+            try {
+                switch (args[i - 1]) {
+                    case "--host":
+                        host = value;
+                        break;
+                    case "--port":
+                        port = Integer.parseInt(value);
+                        break;
+                    case "--connections":
+                        connections = Integer.parseInt(value);
+                        break;
+                    case "--duration":
+                        durationSeconds = Double.parseDouble(value);
+                        break;
+                    case "--warmup":
+                        warmupSeconds = Double.parseDouble(value);
+                        break;
+                    case "--rate":
+                        rate = Double.parseDouble(value);
+                        break;
+                    case "--expected-interval":
+                        expectedIntervalMicros = Long.parseLong(value);
+                        break;
+                    case "--commands":
+                        commands = Arrays.asList(value.split(","));
+                        break;
+                    case "--payload":
+                        payloadLength = Integer.parseInt(value);
+                        break;
+                    case "--timeout":
+                        timeoutSeconds = Double.parseDouble(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + args[i - 1]);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(
+                        "Invalid value for option " + args[i - 1] + ": " + value, e);
+            }
+        }
+
+        if (connections < 1) {
+            throw new IllegalArgumentException("--connections must be at least 1");
+        } else if (durationSeconds <= 0) {
+            throw new IllegalArgumentException("--duration must be positive");
+        } else if (timeoutSeconds <= 0) {
+            throw new IllegalArgumentException("--timeout must be positive");
+        } else if (warmupSeconds < 0 || rate < 0 || expectedIntervalMicros < 0
+                || payloadLength < 0) {
+            throw new IllegalArgumentException(
+                    "--warmup, --rate, --expected-interval and --payload must not be negative");
+        }
+
+        return new Options(host, port, connections,
+                (long) (durationSeconds * TimeUnit.SECONDS.toNanos(1)),
+                (long) (warmupSeconds * TimeUnit.SECONDS.toNanos(1)),
+                rate, TimeUnit.MICROSECONDS.toNanos(expectedIntervalMicros),
+                commands, payloadLength,
+                (long) (timeoutSeconds * TimeUnit.SECONDS.toNanos(1)));
+    }
+}
@@ -0,0 +1,291 @@
+package org.gpcp.loadgen;
+
+import org.gpcp.utils.Packet;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends calls over a single connection, one at a time, and measures their latency in
+ * microseconds. In open-loop mode calls are scheduled at a fixed interval and latency is measured
+ * from the scheduled time, so a slow response also delays (and is charged to) the following
+ * calls, instead of being hidden by coordinated omission.
+ */
+final class Worker extends Thread {
+    private static final long RECONNECT_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final Options options;
+    private final List<Call> calls;
+    private final long measureStartNanos;
+    private final long endNanos;
+    private final long intervalNanos;
+    private final long firstScheduledNanos;
+
+    // only accessed by this thread until it is joined
+    final Histogram responseLatency = new Histogram();
+    final Histogram serviceLatency = new Histogram();
+    long completedCalls = 0;
+    long invalidResponses = 0;
+    long connectionErrors = 0;
+    long goingAwaySignals = 0;
+    long rejectedCalls = 0;
+    long timedOutCalls = 0;
+    long unsentCalls = 0;
+    long finishedNanos = 0;
+    RuntimeException failure = null;
+
+    // also accessed by abort(), from the thread running the LoadGenerator
+    private volatile Socket socket;
+    private volatile boolean aborted = false;
+    private int nextCall;
+
+    /**
+     * @param index the index of this worker, used to spread calls and scheduled times
+     * @param startNanos when the warmup starts, in {@link System#nanoTime()} time
+     */
+    Worker(final Options options, final List<Call> calls, final int index, final long startNanos) {
+        super("loadgen-worker-" + index);
+        this.options = options;
+        this.calls = calls;
+        this.measureStartNanos = startNanos + options.warmupNanos;
+        this.endNanos = measureStartNanos + options.durationNanos;
+        this.nextCall = index % calls.size();
+
+        if (options.isOpenLoop()) {
+            // every connection gets an equal share of the rate, with staggered phases
+            intervalNanos = Math.max(1,
+                    (long) (TimeUnit.SECONDS.toNanos(1) * options.connections / options.rate));
+            firstScheduledNanos = startNanos + intervalNanos * index / options.connections;
+        } else {
+            intervalNanos = 0;
+            firstScheduledNanos = startNanos;
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            runCalls();
+        } catch (RuntimeException e) {
+            failure = e; // reported by the LoadGenerator, next to the partial results
+        } finally {
+            closeSocket();
+            finishedNanos = System.nanoTime();
+        }
+    }
+
+    private void runCalls() {
+        long scheduledNanos = firstScheduledNanos;
+        while (scheduledNanos < endNanos && !aborted) {
+            if (options.isOpenLoop()) {
+                waitUntil(scheduledNanos);
+                if (System.nanoTime() >= endNanos) {
+                    // the server could not keep up with the rate: do not keep sending after the
+                    // end of the run, but report how far behind schedule this connection is
+                    unsentCalls = countUnsentCalls(scheduledNanos, endNanos, intervalNanos);
+                    break;
+                }
+            } else {
+                scheduledNanos = System.nanoTime();
+                if (scheduledNanos >= endNanos) {
+                    break;
+                }
+            }
+
+            final Call call = calls.get(nextCall);
+            nextCall = (nextCall + 1) % calls.size();
+            callAndRecord(call, scheduledNanos);
+
+            scheduledNanos += intervalNanos;
+        }
+    }
+
+    /**
+     * Closes the connection, to unblock a call stuck writing to a server that stopped reading,
+     * which the read timeout cannot do. The call is counted as timed out.
+     */
+    void abort() {
+        aborted = true;
+        final Socket currentSocket = socket;
+        if (currentSocket != null) {
+            try {
+                currentSocket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * @param nextScheduledNanos when the first call not sent yet was scheduled
+     * @param endNanos when the run ends
+     * @param intervalNanos the interval between two scheduled calls
+     * @return the number of calls scheduled in [nextScheduledNanos, endNanos)
+     */
+    static long countUnsentCalls(final long nextScheduledNanos,
+                                 final long endNanos,
+                                 final long intervalNanos) {
+        if (nextScheduledNanos >= endNanos) {
+            return 0;
+        }
+        return (endNanos - nextScheduledNanos + intervalNanos - 1) / intervalNanos;
+    }
+
+    /**
+     * @param remainingNanos the time left until a deadline
+     * @return a timeout in milliseconds usable with {@link Socket#setSoTimeout(int)} and
+     *         {@link Socket#connect(java.net.SocketAddress, int)}: at least 1, since 0 means no
+     *         timeout, and clamped before the cast, so that very long runs do not overflow
+     */
+    static int timeoutMillis(final long remainingNanos) {
+        return (int) Math.min(Integer.MAX_VALUE,
+                Math.max(1, TimeUnit.NANOSECONDS.toMillis(remainingNanos)));
+    }
+
+    private void callAndRecord(final Call call, final long scheduledNanos) {
+        if (!ensureConnected()) {
+            if (isMeasuring()) {
+                ++connectionErrors;
+            }
+            return;
+        }
+
+        final long sentNanos = System.nanoTime();
+        final String response;
+        try {
+            // a server that stopped responding must not keep the run going forever
+            socket.setSoTimeout(timeoutMillis(endNanos + options.timeoutNanos - sentNanos));
+            Packet.sendAll(socket, call.request);
+            response = Packet.receiveAll(socket);
+        } catch (IOException e) {
+            if (isMeasuring()) {
+                if (aborted || e instanceof SocketTimeoutException) {
+                    ++timedOutCalls;
+                } else {
+                    ++connectionErrors;
+                }
+            }
+            closeSocket(); // the response could still arrive and be read by the next call
+            return;
+        }
+        final long receivedNanos = System.nanoTime();
+        // calls are measured when they complete, so that throughput is the one of the server
+        // even when a saturated connection is still catching up on calls scheduled in warmup
+        final boolean measured = receivedNanos >= measureStartNanos;
+
+        if (response == null || Packet.isGoingAway(response)) {
+            if (measured) {
+                if (response == null) {
+                    ++connectionErrors;
+                } else {
+                    // the server is draining: the call failed, and the next one goes to a new
+                    // connection, like a pooling client moving to another server would do
+                    ++goingAwaySignals;
+                    ++rejectedCalls;
+                }
+            }
+            closeSocket();
+            return;
+        } else if (!measured) {
+            return;
+        }
+
+        ++completedCalls;
+        if (!call.isValidResponse(response)) {
+            ++invalidResponses;
+        }
+
+        final long serviceMicros = TimeUnit.NANOSECONDS.toMicros(receivedNanos - sentNanos);
+        serviceLatency.record(serviceMicros);
+        if (options.isOpenLoop()) {
+            responseLatency.record(
+                    TimeUnit.NANOSECONDS.toMicros(receivedNanos - scheduledNanos));
+        } else {
+            responseLatency.recordWithExpectedInterval(serviceMicros,
+                    TimeUnit.NANOSECONDS.toMicros(options.expectedIntervalNanos));
+        }
+    }
+
+    private boolean isMeasuring() {
+        return System.nanoTime() >= measureStartNanos;
+    }
+
+    private boolean ensureConnected() {
+        if (socket != null && !isClosingWhileIdle()) {
+            return true;
+        }
+
+        final Socket newSocket = new Socket();
+        try {
+            newSocket.connect(new InetSocketAddress(options.host, options.port),
+                    timeoutMillis(endNanos + options.timeoutNanos - System.nanoTime()));
+            newSocket.setTcpNoDelay(true);
+            socket = newSocket;
+            if (aborted) {
+                closeSocket(); // abort() could have missed the new socket
+                return false;
+            }
+            return true;
+        } catch (IOException e) {
+            try {
+                newSocket.close();
+            } catch (IOException ignored) {
+            }
+            LockSupport.parkNanos(RECONNECT_DELAY_NANOS); // do not spin on a dead server
+            return false;
+        }
+    }
+
+    /**
+     * A draining server sends {@link Packet#GOING_AWAY} right after the last response: reading it
+     * before sending the next call avoids writing to a connection the server is closing
+     * @return whether the connection was closed because something was received while idle
+     */
+    private boolean isClosingWhileIdle() {
+        try {
+            if (socket.getInputStream().available() == 0) {
+                return false;
+            }
+
+            final String data = Packet.receiveAll(socket);
+            if (isMeasuring()) {
+                if (Packet.isGoingAway(data)) {
+                    ++goingAwaySignals;
+                } else {
+                    ++connectionErrors; // unexpected data, the connection is out of sync
+                }
+            }
+        } catch (IOException e) {
+            if (isMeasuring()) {
+                ++connectionErrors;
+            }
+        }
+
+        closeSocket();
+        return true;
+    }
+
+    private void closeSocket() {
+        final Socket currentSocket = socket;
+        if (currentSocket == null) {
+            return;
+        }
+
+        try {
+            currentSocket.close();
+        } catch (IOException ignored) {
+        }
+        socket = null;
+    }
+
+    private static void waitUntil(final long nanos) {
+        long remaining;
+        while ((remaining = nanos - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package org.gpcp.loadgen;
+
+import org.gpcp.Server;
+import org.gpcp.types.TypeId;
+import org.gpcp.utils.BaseHandler;
+import org.junit.Test;
+
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CallTest {
+
+    private static List<Call> fetchCalls(final List<String> commandNames) throws Exception {
+        final Server server = new Server(new BaseHandler.Factory<>(
+                LoadGeneratorTest.Handler.class, LoadGeneratorTest.Handler::new), true);
+        server.startServer("localhost", LoadGeneratorTest.PORT);
+        try (Socket socket = new Socket("localhost", LoadGeneratorTest.PORT)) {
+            return Call.fetchCalls(socket, commandNames, 3);
+        } finally {
+            LoadGeneratorTest.stopServer(server);
+        }
+    }
+
+    private static List<String> requests(final List<Call> calls) {
+        final List<String> requests = new ArrayList<>();
+        for (final Call call : calls) {
+            requests.add(call.request);
+        }
+        Collections.sort(requests);
+        return requests;
+    }
+
+    @Test(timeout = 2000)
+    public void testFetchAllCalls() throws Exception {
+        // requestCommands is left out, and arguments are generated from their types
+        assertEquals(Arrays.asList("echo[\"xxx\"]", "massimo[1,1]", "pi[]", "sleep[1]"),
+                requests(fetchCalls(Collections.emptyList())));
+    }
+
+    @Test(timeout = 2000)
+    public void testFetchSelectedCalls() throws Exception {
+        final List<Call> calls = fetchCalls(Arrays.asList("pi", "requestCommands", "massimo"));
+        assertEquals(3, calls.size());
+        assertEquals("pi[]", calls.get(0).request);
+        assertEquals("requestCommands[]", calls.get(1).request);
+        assertEquals("massimo[1,1]", calls.get(2).request);
+    }
+
+    @Test(timeout = 2000)
+    public void testFetchUnknownCall() throws Exception {
+        try {
+            fetchCalls(Arrays.asList("pi", "nope"));
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            assertEquals("Unknown command nope", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testIsValidResponse() {
+        final Call integerCall = new Call("massimo", "massimo[1,1]", TypeId.integerId.getId());
+        assertTrue(integerCall.isValidResponse("1"));
+        assertFalse(integerCall.isValidResponse("1.5"));
+        // failures are reported by the server as a string
+        assertFalse(integerCall.isValidResponse("\"Unknown command: massimo\""));
+        assertFalse(integerCall.isValidResponse("not json"));
+
+        final Call floatCall = new Call("pi", "pi[]", TypeId.floatId.getId());
+        assertTrue(floatCall.isValidResponse("3.14159"));
+        assertTrue(floatCall.isValidResponse("3"));
+
+        final Call stringCall = new Call("echo", "echo[\"x\"]", TypeId.stringId.getId());
+        assertTrue(stringCall.isValidResponse("\"x\""));
+        assertFalse(stringCall.isValidResponse("true"));
+
+        final Call bytesCall = new Call("bytes", "bytes[]", TypeId.bytesId.getId());
+        assertTrue(bytesCall.isValidResponse("\"x\""));
+
+        final Call booleanCall = new Call("b", "b[]", TypeId.booleanId.getId());
+        assertTrue(booleanCall.isValidResponse("false"));
+        assertFalse(booleanCall.isValidResponse("0"));
+
+        final Call arrayCall = new Call("a", "a[]", TypeId.jsonArrayId.getId());
+        assertTrue(arrayCall.isValidResponse("[1,2]"));
+        assertFalse(arrayCall.isValidResponse("{}"));
+
+        final Call objectCall = new Call("o", "o[]", TypeId.jsonObjectId.getId());
+        assertTrue(objectCall.isValidResponse("{\"a\":1}"));
+        assertFalse(objectCall.isValidResponse("[]"));
+    }
+}
@@ -0,0 +1,77 @@
+package org.gpcp.loadgen;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HistogramTest {
+
+    private static void assertWithinRelativeError(final long expected, final long actual) {
+        assertTrue("Expected " + expected + " but got " + actual,
+                Math.abs(expected - actual) <= expected * 0.016);
+    }
+
+    @Test
+    public void testEmpty() {
+        final Histogram histogram = new Histogram();
+        assertEquals(0, histogram.getTotalCount());
+        assertEquals(0, histogram.getValueAtPercentile(99));
+        assertEquals(0.0, histogram.getMean(), 0.0);
+    }
+
+    @Test
+    public void testPercentiles() {
+        final Histogram histogram = new Histogram();
+        for (long value = 1; value <= 100000; ++value) {
+            histogram.record(value);
+        }
+
+        assertEquals(100000, histogram.getTotalCount());
+        assertEquals(100000, histogram.getMax());
+        assertEquals(50000.5, histogram.getMean(), 0.0);
+        assertEquals(100, histogram.getValueAtPercentile(0.1)); // exact below 128
+        assertWithinRelativeError(50000, histogram.getValueAtPercentile(50));
+        assertWithinRelativeError(99000, histogram.getValueAtPercentile(99));
+        assertEquals(100000, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void testLargeValues() {
+        final Histogram histogram = new Histogram();
+        histogram.record(Long.MAX_VALUE);
+        histogram.record(-5); // clamped to 0
+
+        assertEquals(0, histogram.getValueAtPercentile(50));
+        assertEquals(Long.MAX_VALUE, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void testAdd() {
+        final Histogram first = new Histogram();
+        final Histogram second = new Histogram();
+        first.record(10);
+        second.record(20);
+        second.record(30);
+
+        first.add(second);
+        assertEquals(3, first.getTotalCount());
+        assertEquals(30, first.getMax());
+        assertEquals(20, first.getValueAtPercentile(50));
+    }
+
+    @Test
+    public void testCoordinatedOmissionCorrection() {
+        final Histogram histogram = new Histogram();
+        for (int i = 0; i < 99; ++i) {
+            histogram.recordWithExpectedInterval(10, 100);
+        }
+        // a single stall of 1000 hides 9 calls that would have been sent in the meantime
+        histogram.recordWithExpectedInterval(1000, 100);
+
+        assertEquals(109, histogram.getTotalCount());
+        assertEquals(1000, histogram.getMax());
+        assertWithinRelativeError(200, histogram.getValueAtPercentile(92));
+        assertEquals(10, histogram.getValueAtPercentile(90));
+    }
+}
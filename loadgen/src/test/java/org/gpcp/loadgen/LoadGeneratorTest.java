@@ -0,0 +1,221 @@
+package org.gpcp.loadgen;
+
+import com.grack.nanojson.JsonArray;
+
+import org.gpcp.Server;
+import org.gpcp.types.TypeId;
+import org.gpcp.utils.BaseHandler;
+import org.gpcp.utils.Command;
+import org.junit.Test;
+
+import java.net.Socket;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LoadGeneratorTest {
+    static final int PORT = 8001;
+
+    static class Handler extends BaseHandler {
+        @Override
+        public Object unknownCommand(String commandTrigger, JsonArray arguments) {
+            return "Unknown command: " + commandTrigger;
+        }
+
+        @Command
+        public double pi() {
+            return 3.14159;
+        }
+
+        @Command
+        public int massimo(final int a, final int b) {
+            return Math.max(a, b);
+        }
+
+        @Command
+        public String echo(final String string) {
+            return string;
+        }
+
+        @Command
+        public int sleep(final int millis) throws InterruptedException {
+            TimeUnit.MILLISECONDS.sleep(millis);
+            return millis;
+        }
+    }
+
+    private static Server startServer() throws Exception {
+        final Server server = new Server(
+                new BaseHandler.Factory<>(Handler.class, Handler::new), true);
+        server.startServer("localhost", PORT);
+        return server;
+    }
+
+    /**
+     * Also waits for the server thread, so that the port is free again for the next test
+     */
+    static void stopServer(final Server server) throws Exception {
+        server.stopServer();
+        server.join();
+    }
+
+    private static List<Call> fetchCalls() throws Exception {
+        try (Socket socket = new Socket("localhost", PORT)) {
+            return Call.fetchCalls(socket, Collections.emptyList(), 16);
+        }
+    }
+
+    private static Options options(final String... args) {
+        final String[] allArgs = new String[args.length + 2];
+        allArgs[0] = "--port";
+        allArgs[1] = String.valueOf(PORT);
+        System.arraycopy(args, 0, allArgs, 2, args.length);
+        return Options.parse(allArgs);
+    }
+
+    @Test
+    public void testCountUnsentCalls() {
+        assertEquals(0, Worker.countUnsentCalls(100, 100, 10));
+        assertEquals(0, Worker.countUnsentCalls(150, 100, 10));
+        assertEquals(1, Worker.countUnsentCalls(99, 100, 10));
+        assertEquals(1, Worker.countUnsentCalls(90, 100, 10));
+        assertEquals(2, Worker.countUnsentCalls(89, 100, 10));
+        assertEquals(10, Worker.countUnsentCalls(0, 100, 10));
+    }
+
+    @Test
+    public void testTimeoutMillis() {
+        assertEquals(1, Worker.timeoutMillis(-5));
+        assertEquals(1, Worker.timeoutMillis(0));
+        assertEquals(1500, Worker.timeoutMillis(TimeUnit.MILLISECONDS.toNanos(1500)));
+        // runs longer than ~24.8 days must not overflow to a negative timeout
+        assertEquals(Integer.MAX_VALUE, Worker.timeoutMillis(TimeUnit.DAYS.toNanos(30)));
+        assertEquals(Integer.MAX_VALUE, Worker.timeoutMillis(Long.MAX_VALUE));
+    }
+
+    @Test(timeout = 5000)
+    public void testClosedLoop() throws Exception {
+        final Server server = startServer();
+        try {
+            final LoadGenerator.Result result = new LoadGenerator(
+                    options("--connections", "4", "--duration", "0.5", "--warmup", "0.1"),
+                    fetchCalls()).run();
+
+            assertTrue(result.completedCalls > 0);
+            assertEquals(0, result.invalidResponses);
+            assertEquals(0, result.getFailedCalls());
+            assertEquals(result.completedCalls, result.serviceLatency.getTotalCount());
+            assertTrue(result.durationNanos >= TimeUnit.MILLISECONDS.toNanos(500));
+            assertTrue(result.workerFailures.isEmpty());
+        } finally {
+            stopServer(server);
+        }
+    }
+
+    @Test(timeout = 5000)
+    public void testOpenLoop() throws Exception {
+        final Server server = startServer();
+        try {
+            final LoadGenerator.Result result = new LoadGenerator(
+                    options("--connections", "2", "--duration", "0.5", "--rate", "20"),
+                    fetchCalls()).run();
+
+            // 20 calls/s for 0.5 s, far below what the server can handle
+            assertTrue(result.completedCalls >= 9 && result.completedCalls <= 11);
+            assertEquals(0, result.invalidResponses);
+            assertEquals(0, result.getFailedCalls());
+            assertEquals(0, result.unsentCalls);
+            assertEquals(result.completedCalls, result.responseLatency.getTotalCount());
+        } finally {
+            stopServer(server);
+        }
+    }
+
+    @Test(timeout = 5000)
+    public void testInvalidResponses() throws Exception {
+        final Server server = startServer();
+        try {
+            // the server answers unknown commands with a string instead of an integer
+            final LoadGenerator.Result result = new LoadGenerator(
+                    options("--duration", "0.3"),
+                    Collections.singletonList(
+                            new Call("massimo", "nope[]", TypeId.integerId.getId()))).run();
+
+            assertTrue(result.completedCalls > 0);
+            assertEquals(result.completedCalls, result.invalidResponses);
+            assertEquals(0, result.getSuccessfulCalls());
+            assertEquals(result.completedCalls, result.getFailedCalls());
+        } finally {
+            stopServer(server);
+        }
+    }
+
+    @Test(timeout = 5000)
+    public void testWorkerFailure() throws Exception {
+        final Server server = startServer();
+        try {
+            // a null request makes the worker fail with an unexpected NullPointerException
+            final LoadGenerator.Result result = new LoadGenerator(
+                    options("--duration", "0.3"),
+                    Collections.singletonList(
+                            new Call("pi", null, TypeId.floatId.getId()))).run();
+
+            assertEquals(1, result.workerFailures.size());
+            assertTrue(result.workerFailures.get(0).startsWith(
+                    "loadgen-worker-0: java.lang.NullPointerException"));
+            assertEquals(0, result.completedCalls);
+        } finally {
+            stopServer(server);
+        }
+    }
+
+    @Test(timeout = 5000)
+    public void testTimeout() throws Exception {
+        final Server server = startServer();
+        try {
+            final long startNanos = System.nanoTime();
+            final LoadGenerator.Result result = new LoadGenerator(
+                    options("--duration", "0.2", "--timeout", "0.2"),
+                    Collections.singletonList(
+                            new Call("sleep", "sleep[3000]", TypeId.integerId.getId()))).run();
+
+            // the run ends shortly after duration + timeout, not when the response arrives
+            assertTrue(System.nanoTime() - startNanos < TimeUnit.MILLISECONDS.toNanos(2000));
+            assertEquals(0, result.completedCalls);
+            assertEquals(1, result.timedOutCalls);
+        } finally {
+            stopServer(server);
+        }
+    }
+
+    @Test(timeout = 5000)
+    public void testDrainDuringRun() throws Exception {
+        final Server server = startServer();
+        final List<Call> calls = fetchCalls();
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<LoadGenerator.Result> futureResult = executor.submit(() ->
+                    new LoadGenerator(options("--connections", "2", "--duration", "1"), calls)
+                            .run());
+            TimeUnit.MILLISECONDS.sleep(400);
+            assertTrue(server.drainServer(1, TimeUnit.SECONDS));
+
+            final LoadGenerator.Result result = futureResult.get();
+            assertTrue(result.completedCalls > 0);
+            assertEquals(0, result.invalidResponses);
+            assertEquals(2, result.goingAwaySignals);
+            // the server does not accept connections anymore
+            assertTrue(result.connectionErrors > 0);
+        } finally {
+            executor.shutdown();
+            stopServer(server);
+        }
+    }
+}
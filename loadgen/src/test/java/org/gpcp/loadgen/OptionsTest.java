@@ -0,0 +1,77 @@
+package org.gpcp.loadgen;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class OptionsTest {
+
+    private static void assertInvalid(final String... args) {
+        try {
+            Options.parse(args);
+            fail("Expected IllegalArgumentException for " + Arrays.toString(args));
+        } catch (IllegalArgumentException ignored) {
+        }
+    }
+
+    @Test
+    public void testDefaults() {
+        final Options options = Options.parse(new String[0]);
+        assertEquals("localhost", options.host);
+        assertEquals(8000, options.port);
+        assertEquals(1, options.connections);
+        assertEquals(TimeUnit.SECONDS.toNanos(10), options.durationNanos);
+        assertEquals(0, options.warmupNanos);
+        assertFalse(options.isOpenLoop());
+        assertEquals(Collections.emptyList(), options.commands);
+        assertEquals(16, options.payloadLength);
+        assertEquals(TimeUnit.SECONDS.toNanos(1), options.timeoutNanos);
+    }
+
+    @Test
+    public void testParse() {
+        final Options options = Options.parse(new String[] {
+                "--host", "127.0.0.1", "--port", "9000", "--connections", "8",
+                "--duration", "0.5", "--warmup", "2", "--rate", "1000",
+                "--expected-interval", "250", "--commands", "pi,massimo",
+                "--payload", "64", "--timeout", "3"});
+        assertEquals("127.0.0.1", options.host);
+        assertEquals(9000, options.port);
+        assertEquals(8, options.connections);
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(500), options.durationNanos);
+        assertEquals(TimeUnit.SECONDS.toNanos(2), options.warmupNanos);
+        assertTrue(options.isOpenLoop());
+        assertEquals(1000.0, options.rate, 0.0);
+        assertEquals(TimeUnit.MICROSECONDS.toNanos(250), options.expectedIntervalNanos);
+        assertEquals(Arrays.asList("pi", "massimo"), options.commands);
+        assertEquals(64, options.payloadLength);
+        assertEquals(TimeUnit.SECONDS.toNanos(3), options.timeoutNanos);
+    }
+
+    @Test
+    public void testHelp() {
+        assertNull(Options.parse(new String[] {"--port", "9000", "--help"}));
+    }
+
+    @Test
+    public void testInvalid() {
+        assertInvalid("--bogus", "1");
+        assertInvalid("--port");
+        assertInvalid("--port", "http");
+        assertInvalid("--connections", "0");
+        assertInvalid("--duration", "0");
+        assertInvalid("--timeout", "0");
+        assertInvalid("--warmup", "-1");
+        assertInvalid("--rate", "-5");
+        assertInvalid("--expected-interval", "-1");
+        assertInvalid("--payload", "-1");
+    }
+}